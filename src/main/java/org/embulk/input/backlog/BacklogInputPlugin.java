@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import org.embulk.config.Config;
 import org.embulk.config.ConfigDefault;
 import org.embulk.config.ConfigDiff;
@@ -13,19 +14,28 @@ import org.embulk.config.Task;
 import org.embulk.config.TaskReport;
 import org.embulk.config.TaskSource;
 import org.embulk.input.backlog.client.BacklogClient;
+import org.embulk.input.backlog.client.ReferenceDataCache;
+import org.embulk.input.backlog.client.ReplayClient;
 import org.embulk.input.backlog.helpers.BacklogHelper;
+import org.embulk.input.backlog.helpers.IssueHashIndex;
+import org.embulk.input.backlog.helpers.ParallelRecordWriter;
+import org.embulk.spi.Column;
 import org.embulk.spi.Exec;
 import org.embulk.spi.InputPlugin;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.PageOutput;
 import org.embulk.spi.Schema;
 import org.embulk.spi.SchemaConfig;
+import org.embulk.spi.type.Types;
 import org.embulk.util.config.ConfigMapperFactory;
 import org.embulk.util.guess.SchemaGuess;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +43,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.function.Consumer;
 
 /**
  * @author thangnc
@@ -46,8 +57,16 @@ public class BacklogInputPlugin
                                                                                        .build();
     private static final int GUESS_RECORDS_COUNT = 10;
     private static final int PREVIEW_RECORDS_COUNT = 10;
-
-    public interface PluginTask
+    private static final int ISSUES_PAGE_SIZE = 100;  // the maximum count of the issues API
+    private static final String SPACE_COLUMN_NAME = "space";
+    private static final String REFRESH_TOKEN_KEY = "refresh_token";
+    private static final String SPACES_KEY = "spaces";
+
+    /**
+     * Connection settings of one Backlog space. The top-level settings describe the space when
+     * {@code spaces} is not given.
+     */
+    public interface SpaceTask
             extends Task {
 
         @Config("auth_method")
@@ -62,10 +81,46 @@ public class BacklogInputPlugin
         @ConfigDefault("null")
         Optional<String> getAccessToken();
 
+        @Config("refresh_token")
+        @ConfigDefault("null")
+        Optional<String> getRefreshToken();
+
+        @Config("client_id")
+        @ConfigDefault("null")
+        Optional<String> getClientId();
+
+        @Config("client_secret")
+        @ConfigDefault("null")
+        Optional<String> getClientSecret();
+
         @Config("uri")
         @ConfigDefault("null")
         String getUri();
 
+        @Config("project_ids")
+        @ConfigDefault("[]")
+        List<Long> getProjectIds();
+    }
+
+    public interface PluginTask
+            extends SpaceTask {
+
+        @Config("spaces")
+        @ConfigDefault("[]")
+        List<SpaceTask> getSpaces();
+
+        @Config("source")
+        @ConfigDefault("live")
+        Source getSource();
+
+        @Config("replay_dir")
+        @ConfigDefault("null")
+        Optional<String> getReplayDir();
+
+        @Config("capture_dir")
+        @ConfigDefault("null")
+        Optional<String> getCaptureDir();
+
         @Config("initial_retry_interval_millis")
         @ConfigDefault("1000")
         int getInitialRetryIntervalMillis();
@@ -82,6 +137,26 @@ public class BacklogInputPlugin
         @ConfigDefault("5")
         int getRetryLimit();
 
+        @Config("cache_dir")
+        @ConfigDefault("null")
+        Optional<String> getCacheDir();
+
+        @Config("cache_ttl_seconds")
+        @ConfigDefault("3600")
+        long getCacheTtlSeconds();
+
+        @Config("cache_max_bytes")
+        @ConfigDefault("104857600")
+        long getCacheMaxBytes();
+
+        @Config("delta_index_path")
+        @ConfigDefault("null")
+        Optional<String> getDeltaIndexPath();
+
+        @Config("conversion_threads")
+        @ConfigDefault("1")
+        int getConversionThreads();
+
         @Config("dynamic_schema")
         @ConfigDefault("false")
         boolean getDynamicSchema();
@@ -95,9 +170,20 @@ public class BacklogInputPlugin
                                   InputPlugin.Control control) {
         PluginTask task = config.loadConfig(PluginTask.class);
 
+        if (task.getConversionThreads() < 1) {
+            throw new ConfigException("'conversion_threads' must be 1 or more");
+        }
         Schema schema = task.getColumns().toSchema();
+        validateReferenceColumns(task, schema);
         int taskCount = 1;  // number of run() method calls
 
+        // One task per space, so that the executor loads the spaces concurrently
+        if (!task.getSpaces().isEmpty()) {
+            validateSpaces(task);
+            schema = addSpaceColumn(schema);
+            taskCount = task.getSpaces().size();
+        }
+
         return resume(task.dump(), schema, taskCount, control);
     }
 
@@ -105,14 +191,28 @@ public class BacklogInputPlugin
     public ConfigDiff resume(TaskSource taskSource,
                              Schema schema, int taskCount,
                              InputPlugin.Control control) {
-        control.run(taskSource, schema, taskCount);
-        return Exec.newConfigDiff();
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+        final List<TaskReport> taskReports = control.run(taskSource, schema, taskCount);
+        final Map<Integer, String> refreshTokens = new HashMap<>();
+
+        // Reports are in task order, which is the order of 'spaces'
+        for (int i = 0; i < taskReports.size(); i++) {
+            if (taskReports.get(i).has(REFRESH_TOKEN_KEY)) {
+                refreshTokens.put(i, taskReports.get(i).get(String.class, REFRESH_TOKEN_KEY));
+            }
+        }
+        return setRefreshTokens(task, CONFIG_MAPPER_FACTORY.newConfigDiff(), refreshTokens);
     }
 
     @Override
     public void cleanup(TaskSource taskSource,
                         Schema schema, int taskCount,
                         List<TaskReport> successTaskReports) {
+        PluginTask task = taskSource.loadTask(PluginTask.class);
+
+        for (final SpaceTask space : getSpaces(task)) {
+            getDeltaIndexPath(task, space).ifPresent(IssueHashIndex::commit);
+        }
     }
 
     @Override
@@ -120,19 +220,48 @@ public class BacklogInputPlugin
                           Schema schema, int taskIndex,
                           PageOutput output) {
         PluginTask task = taskSource.loadTask(PluginTask.class);
-
-        BacklogClient backlogClient = new BacklogClient();
-        try (final PageBuilder pageBuilder = getPageBuilder(schema, output)) {
-            if (isPreview()) {
+        final SpaceTask space = getSpaces(task).get(taskIndex);
+        final JsonElement spaceValue = task.getSpaces().isEmpty() ? null : new JsonPrimitive(BacklogHelper.getSpaceHost(space.getUri()));
+
+        // A real run must see the space as it is now, only guess and preview are served from a fresh cache
+        BacklogClient backlogClient = getBacklogClient(task, space, isPreview());
+        // The preview must not move the index forward, otherwise the next real run would skip those issues
+        final IssueHashIndex deltaIndex = isPreview() ? null : getDeltaIndexPath(task, space).map(IssueHashIndex::load).orElse(null);
+        try (final PageBuilder pageBuilder = getPageBuilder(schema, output);
+             final ParallelRecordWriter writer = new ParallelRecordWriter(schema, task, pageBuilder, task.getConversionThreads(), deltaIndex);
+             final ReferenceDataCache referenceData = new ReferenceDataCache(backlogClient, task, space, schema)) {
+            final Consumer<Issue> recorder = issue -> {
+                if (spaceValue != null) {
+                    issue.setVirtualValue(SPACE_COLUMN_NAME, spaceValue);
+                }
+                referenceData.resolve(issue);
+                writer.add(issue);
+            };
+
+            if (task.getSource() == Source.REPLAY) {
+                final long maxResults = isPreview() ? PREVIEW_RECORDS_COUNT : Long.MAX_VALUE;
+                new ReplayClient().readIssues(task, maxResults, recorder);
+            } else if (isPreview()) {
                 final List<Issue> issues = backlogClient.searchIssues(task, 0, PREVIEW_RECORDS_COUNT);
-                issues.forEach(issue -> BacklogHelper.addRecord(issue, schema, task, pageBuilder));
+                issues.forEach(recorder);
             } else {
-                throw new UnsupportedOperationException("BacklogInputPlugin.run method is not implemented yet");
+                int offset = 0;
+                List<Issue> issues;
+                do {
+                    issues = backlogClient.searchIssues(task, offset, ISSUES_PAGE_SIZE, true);
+                    issues.forEach(recorder);
+                    offset += issues.size();
+                } while (issues.size() == ISSUES_PAGE_SIZE);
+                LOGGER.info(String.format("Loaded %d issues from %s", offset, space.getUri()));
             }
 
+            writer.flush();
             pageBuilder.finish();
         }
-        return CONFIG_MAPPER_FACTORY.newTaskReport();
+        if (deltaIndex != null) {
+            deltaIndex.save();
+        }
+        return getTaskReport(space, backlogClient);
     }
 
     @Override
@@ -141,17 +270,145 @@ public class BacklogInputPlugin
         PluginTask task = config.loadConfig(PluginTask.class);
 
 //        JiraUtil.validateTaskConfig(task);
-        BacklogClient backlogClient = getBacklogClient();
+        BacklogClient backlogClient = getBacklogClient(task, getSpaces(task).get(0), true);
+        final ConfigDiff configDiff = CONFIG_MAPPER_FACTORY.newConfigDiff().set("columns", getGuessColumns(backlogClient, task));
 
-        return CONFIG_MAPPER_FACTORY.newConfigDiff().set("columns", getGuessColumns(backlogClient, task));
+        // Guess may have refreshed the token, the configured one is no longer valid then
+        final Map<Integer, String> refreshTokens = new HashMap<>();
+        backlogClient.getRotatedRefreshToken().ifPresent(refreshToken -> refreshTokens.put(0, refreshToken));
+        return setRefreshTokens(task, configDiff, refreshTokens);
     }
 
     public PageBuilder getPageBuilder(final Schema schema, final PageOutput output) {
         return new PageBuilder(Exec.getBufferAllocator(), schema, output);
     }
 
-    private BacklogClient getBacklogClient() {
-        return new BacklogClient();
+    private BacklogClient getBacklogClient(final PluginTask task, final SpaceTask space, final boolean servesFreshEntries) {
+        return new BacklogClient(task, space, servesFreshEntries);
+    }
+
+    private List<SpaceTask> getSpaces(final PluginTask task) {
+        return task.getSpaces().isEmpty() ? Collections.singletonList(task) : task.getSpaces();
+    }
+
+    /*
+     * Each space keeps its own index file, tasks of different spaces run concurrently
+     * */
+    private Optional<String> getDeltaIndexPath(final PluginTask task, final SpaceTask space) {
+        if (task.getSpaces().isEmpty()) {
+            return task.getDeltaIndexPath();
+        }
+        return task.getDeltaIndexPath().map(path -> path + "." + BacklogHelper.getSpaceHost(space.getUri()));
+    }
+
+    /*
+     * Hand a rotated refresh token over to resume(), which writes it to the config diff
+     * Preview returns no config diff, so the new token is logged instead of being lost
+     * */
+    private TaskReport getTaskReport(final SpaceTask space, final BacklogClient backlogClient) {
+        final TaskReport taskReport = CONFIG_MAPPER_FACTORY.newTaskReport();
+        final Optional<String> refreshToken = backlogClient.getRotatedRefreshToken();
+
+        if (refreshToken.isPresent()) {
+            if (isPreview()) {
+                LOGGER.warn(String.format("The refresh_token of %s was rotated by the preview and the configured one is "
+                                                  + "no longer valid, set refresh_token to '%s' before the next run",
+                                          space.getUri(), refreshToken.get()));
+            } else {
+                taskReport.set(REFRESH_TOKEN_KEY, refreshToken.get());
+            }
+        }
+        return taskReport;
+    }
+
+    /*
+     * Backlog rotates the refresh token, the next run has to start from the new one
+     * A config diff can not update a single entry of 'spaces', so the whole list is written back
+     * */
+    private ConfigDiff setRefreshTokens(final PluginTask task, final ConfigDiff configDiff, final Map<Integer, String> refreshTokens) {
+        if (refreshTokens.isEmpty()) {
+            return configDiff;
+        }
+        if (task.getSpaces().isEmpty()) {
+            return configDiff.set(REFRESH_TOKEN_KEY, refreshTokens.get(0));
+        }
+
+        final List<Map<String, Object>> spaces = new ArrayList<>();
+        for (int i = 0; i < task.getSpaces().size(); i++) {
+            spaces.add(toSpaceConfig(task.getSpaces().get(i), refreshTokens.get(i)));
+        }
+        return configDiff.set(SPACES_KEY, spaces);
+    }
+
+    /*
+     * The config of an entry of 'spaces', with the rotated refresh token if there is one
+     * */
+    private Map<String, Object> toSpaceConfig(final SpaceTask space, final String rotatedRefreshToken) {
+        final Map<String, Object> config = new LinkedHashMap<>();
+
+        config.put("uri", space.getUri());
+        config.put("auth_method", space.getAuthMethod().getType());
+        if (space.getApiKey() != null) {
+            config.put("api_key", space.getApiKey());
+        }
+        space.getAccessToken().ifPresent(accessToken -> config.put("access_token", accessToken));
+        if (rotatedRefreshToken != null) {
+            config.put(REFRESH_TOKEN_KEY, rotatedRefreshToken);
+        } else {
+            space.getRefreshToken().ifPresent(refreshToken -> config.put(REFRESH_TOKEN_KEY, refreshToken));
+        }
+        space.getClientId().ifPresent(clientId -> config.put("client_id", clientId));
+        space.getClientSecret().ifPresent(clientSecret -> config.put("client_secret", clientSecret));
+        if (!space.getProjectIds().isEmpty()) {
+            config.put("project_ids", space.getProjectIds());
+        }
+
+        return config;
+    }
+
+    /*
+     * Reference data is fetched from the API, which the replay source is meant to work without
+     * */
+    private void validateReferenceColumns(final PluginTask task, final Schema schema) {
+        if (task.getSource() == Source.REPLAY) {
+            for (final Column column : schema.getColumns()) {
+                if (column.getName().contains(ReferenceDataCache.REFERENCE_SEPARATOR)) {
+                    throw new ConfigException(String.format("Reference column '%s' can not be used when 'source' is 'replay'",
+                                                            column.getName()));
+                }
+            }
+        }
+
+        ReferenceDataCache.validate(schema);
+    }
+
+    private void validateSpaces(final PluginTask task) {
+        if (task.getSource() == Source.REPLAY) {
+            throw new ConfigException("'spaces' can not be used when 'source' is 'replay'");
+        }
+
+        final Set<String> spaceHosts = new HashSet<>();
+        for (final SpaceTask space : task.getSpaces()) {
+            if (space.getUri() == null) {
+                throw new ConfigException("'uri' is required for each entry of 'spaces'");
+            }
+            if (!spaceHosts.add(BacklogHelper.getSpaceHost(space.getUri()))) {
+                throw new ConfigException(String.format("Space '%s' is listed more than once", space.getUri()));
+            }
+        }
+    }
+
+    private Schema addSpaceColumn(final Schema schema) {
+        final Schema.Builder builder = Schema.builder();
+
+        for (final Column column : schema.getColumns()) {
+            if (column.getName().equals(SPACE_COLUMN_NAME)) {
+                throw new ConfigException(String.format("Column '%s' is reserved when 'spaces' is set", SPACE_COLUMN_NAME));
+            }
+            builder.add(column.getName(), column.getType());
+        }
+
+        return builder.add(SPACE_COLUMN_NAME, Types.STRING).build();
     }
 
     private boolean isPreview() {
@@ -171,7 +428,9 @@ public class BacklogInputPlugin
     }
 
     private List<ConfigDiff> getGuessColumns(final BacklogClient backlogClient, final PluginTask task) {
-        final List<Issue> issues = backlogClient.searchIssues(task, 0, GUESS_RECORDS_COUNT);
+        final List<Issue> issues = task.getSource() == Source.REPLAY
+                ? new ReplayClient().readIssues(task, GUESS_RECORDS_COUNT)
+                : backlogClient.searchIssues(task, 0, GUESS_RECORDS_COUNT);
 
         if (issues.isEmpty()) {
             throw new ConfigException("Could not guess schema due to empty data set");
@@ -9,6 +9,7 @@ import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,14 +17,30 @@ import java.util.Map.Entry;
 import java.util.stream.StreamSupport;
 
 public class Issue {
+    private static final List<String> NOT_FLATTENED_FIELDS = Collections.singletonList("customFields");
+
     private JsonObject flatten;
     private final JsonObject json;
+    private final Map<String, JsonElement> virtualValues = new HashMap<>();
 
     public Issue(final JsonObject original) {
         this.json = original;
     }
 
+    /*
+     * Values which are not part of the API response (i.e the space the issue was loaded from)
+     * They take precedence over the response when looked up by the exact path
+     * */
+    public void setVirtualValue(final String path, final JsonElement value) {
+        virtualValues.put(path, value);
+    }
+
     public JsonElement getValue(final String path) {
+        final JsonElement virtualValue = virtualValues.get(path);
+        if (virtualValue != null) {
+            return virtualValue;
+        }
+
         final List<String> keys = new ArrayList<>(Arrays.asList(path.split("\\.")));
 
         return get(json, keys);
@@ -56,10 +73,18 @@ public class Issue {
         }
     }
 
+    /*
+     * Custom fields stay on the issue for reference columns, but their shape differs for each field type
+     * so they are not offered as guessed columns
+     * */
     public synchronized JsonObject getFlatten() {
         if (flatten == null) {
             flatten = new JsonObject();
-            manipulatingFlattenJson(json, "");
+            for (final Entry<String, JsonElement> entry : json.entrySet()) {
+                if (!NOT_FLATTENED_FIELDS.contains(entry.getKey())) {
+                    manipulatingFlattenJson(entry.getValue(), entry.getKey());
+                }
+            }
         }
 
         return flatten;
@@ -0,0 +1,46 @@
+package org.embulk.input.backlog;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import org.embulk.config.ConfigException;
+
+/**
+ * @author thangnc
+ */
+public enum Source {
+
+    LIVE("live"),
+    REPLAY("replay");
+
+    private String type;
+
+    Source(final String type) {
+        this.type = type;
+    }
+
+    /**
+     * Gets type.
+     *
+     * @return the type
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Find by type source.
+     *
+     * @param type the type
+     * @return the source
+     */
+    @JsonCreator
+    public static Source findByType(final String type) {
+        for (Source source : values()) {
+            if (source.getType().equals(type.toLowerCase())) {
+                return source;
+            }
+        }
+
+        throw new ConfigException(String.format("Unknown source '%s'. Supported sources are [live, replay]",
+                                                type));
+    }
+}
@@ -4,6 +4,9 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
@@ -15,9 +18,12 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.AuthMethod;
 import org.embulk.input.backlog.BacklogInputPlugin.PluginTask;
+import org.embulk.input.backlog.BacklogInputPlugin.SpaceTask;
 import org.embulk.input.backlog.Issue;
 import org.embulk.input.backlog.exception.BacklogException;
+import org.embulk.input.backlog.helpers.BacklogHelper;
 import org.embulk.util.retryhelper.RetryExecutor;
 import org.embulk.util.retryhelper.RetryGiveupException;
 import org.embulk.util.retryhelper.Retryable;
@@ -27,10 +33,13 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -40,8 +49,29 @@ import java.util.stream.StreamSupport;
 public class BacklogClient {
     private static final Logger LOGGER = LoggerFactory.getLogger(BacklogClient.class);
     private static final int HTTP_TIMEOUT = 300 * 1000;
+    private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    private static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
 
-    public BacklogClient() {
+    private final SpaceTask space;
+    private final OAuthTokenProvider tokenProvider;
+    private final Optional<ResponseCache> cache;
+    private final boolean servesFreshEntries;
+    // Rate limit state of this space as reported by the last response, each space has its own budget
+    private volatile int rateLimitRemaining = -1;
+    private volatile long rateLimitResetMillis;
+
+    /**
+     * @param task               the task holding the cache settings
+     * @param space              the space to request
+     * @param servesFreshEntries whether fresh cached responses are returned without asking Backlog,
+     *                           a real run passes false so that it never loads pages older than the run
+     */
+    public BacklogClient(final PluginTask task, final SpaceTask space, final boolean servesFreshEntries) {
+        this.space = space;
+        this.tokenProvider = space.getAuthMethod() == AuthMethod.OAUTH ? OAuthTokenProvider.of(space) : null;
+        this.cache = task.getCacheDir()
+                         .map(dir -> ResponseCache.open(dir, task.getCacheTtlSeconds(), task.getCacheMaxBytes()));
+        this.servesFreshEntries = servesFreshEntries;
     }
 
     public CloseableHttpClient createHttpClient() {
@@ -56,59 +86,198 @@ public class BacklogClient {
     }
 
     public List<Issue> searchIssues(final PluginTask task, final int startAt, final int maxResults) {
+        return searchIssues(task, startAt, maxResults, false);
+    }
+
+    /**
+     * Search issues, writing the raw page to {@code capture_dir} when asked to.
+     * Only real runs capture, so that guess and preview do not overwrite the pages of a run.
+     *
+     * @param task       the task
+     * @param startAt    the offset of the page
+     * @param maxResults the size of the page
+     * @param capture    whether to capture the page
+     * @return the issues of the page
+     */
+    public List<Issue> searchIssues(final PluginTask task, final int startAt, final int maxResults, final boolean capture) {
         final String response = searchBacklogIssues(task, startAt, maxResults);
+        if (capture) {
+            task.getCaptureDir().ifPresent(dir -> capturePage(dir, startAt, response));
+        }
         final JsonArray result = new JsonParser().parse(response).getAsJsonArray();
 
         return StreamSupport.stream(result.spliterator(), false)
-                            .map(jsonElement -> {
-                                final JsonObject json = jsonElement.getAsJsonObject();
-                                final Set<Map.Entry<String, JsonElement>> entries = json.entrySet();
-                                json.remove("sharedFiles");
-                                json.remove("attachments");
-                                json.remove("stars");
-                                json.remove("customFields");
-
-                                // Merged all properties in fields to the object
-                                for (final Map.Entry<String, JsonElement> entry : entries) {
-                                    json.add(entry.getKey(), entry.getValue());
-                                }
-
-                                return new Issue(json);
-                            })
+                            .map(jsonElement -> BacklogHelper.toIssue(jsonElement.getAsJsonObject()))
                             .collect(Collectors.toList());
     }
 
-    private String performRequest(final PluginTask task, final int startAt, final int maxResults)
-            throws URISyntaxException, BacklogException {
+    /**
+     * Gets a resource of the space, i.e {@code /api/v2/projects/1/statuses}.
+     *
+     * @param task the task
+     * @param path the API path starting with a slash
+     * @return the parsed response
+     */
+    public JsonElement getJson(final PluginTask task, final String path) {
+        return new JsonParser().parse(performRequestWithRetry(task, space.getUri() + path));
+    }
 
-        try (CloseableHttpClient client = createHttpClient()) {
-            HttpRequestBase request;
-            request = createGetRequest(task, task.getUri() + "/api/v2/issues?projectId[]=45687&offset=0&count=20");
+    /**
+     * Gets the refresh token Backlog issued in place of the configured one, which is no longer valid.
+     *
+     * @return the rotated refresh token, empty if the token was not refreshed
+     */
+    public Optional<String> getRotatedRefreshToken() {
+        if (tokenProvider == null) {
+            return Optional.empty();
+        }
+
+        final String refreshToken = tokenProvider.getRefreshToken();
+        if (refreshToken == null || refreshToken.equals(space.getRefreshToken().orElse(null))) {
+            return Optional.empty();
+        }
+        return Optional.of(refreshToken);
+    }
+
+    /*
+     * Write the raw page as it is so that it can be loaded again with the replay source
+     * File names sort in fetch order and a page fetched again overwrites its previous capture
+     * */
+    private void capturePage(final String captureDir, final int startAt, final String response) {
+        final Path path = Paths.get(captureDir)
+                               .resolve(String.format("issues-%s-%010d.json",
+                                                      BacklogHelper.getSpaceHost(space.getUri()),
+                                                      startAt));
+
+        try {
+            Files.createDirectories(path.getParent());
+            Files.write(path, response.getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Could not capture page to '%s': %s", path, e.getMessage()));
+        }
+    }
+
+    private String performRequest(final PluginTask task, final String url)
+            throws URISyntaxException, BacklogException, InterruptedException {
+
+        final String cacheKey = ResponseCache.toKey(url);
+        // Without serving fresh entries, only those that can be revalidated with a conditional request are of use
+        final Optional<ResponseCache.Entry> cached = cache.flatMap(c -> c.get(cacheKey))
+                                                          .filter(entry -> servesFreshEntries || entry.hasValidator());
+
+        if (cached.isPresent() && servesFreshEntries && cached.get().isFresh()) {
+            return cached.get().getBody();
+        }
 
-            try (CloseableHttpResponse response = client.execute(request)) {
-                final int statusCode = response.getStatusLine().getStatusCode();
+        waitForRateLimit();
+        try (CloseableHttpClient client = createHttpClient()) {
+            final String accessToken = tokenProvider == null ? null : tokenProvider.getAccessToken(client);
 
-                if (statusCode != HttpStatus.SC_OK) {
-                    throw new BacklogException(statusCode, extractErrorMessages(EntityUtils.toString(response.getEntity())));
+            try {
+                return executeRequest(client, createGetRequest(url, accessToken), cacheKey, cached);
+            } catch (final BacklogException e) {
+                if (e.getStatusCode() != HttpStatus.SC_UNAUTHORIZED || tokenProvider == null) {
+                    throw e;
                 }
 
-                return EntityUtils.toString(response.getEntity());
+                // Refreshed once for all tasks sharing the token, then retried right away instead of backing off
+                LOGGER.warn("The access token was rejected, retrying with a refreshed one");
+                final String refreshedToken = tokenProvider.refreshAfterUnauthorized(client, accessToken);
+                return executeRequest(client, createGetRequest(url, refreshedToken), cacheKey, cached);
             }
         } catch (final IOException e) {
             throw new BacklogException(-1, e.getMessage());
         }
     }
 
-    private HttpRequestBase createGetRequest(final PluginTask task, final String url)
+    private String executeRequest(final CloseableHttpClient client,
+                                  final HttpRequestBase request,
+                                  final String cacheKey,
+                                  final Optional<ResponseCache.Entry> cached)
+            throws IOException, BacklogException {
+
+        cached.ifPresent(entry -> addConditionalHeaders(request, entry));
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            updateRateLimit(response);
+
+            if (statusCode == HttpStatus.SC_NOT_MODIFIED && cached.isPresent()) {
+                cache.get().revalidate(cacheKey, cached.get());
+                return cached.get().getBody();
+            }
+
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new BacklogException(statusCode, extractErrorMessages(EntityUtils.toString(response.getEntity())));
+            }
+
+            final String body = EntityUtils.toString(response.getEntity());
+            cache.ifPresent(c -> c.put(cacheKey,
+                                       body,
+                                       getHeaderValue(response, HttpHeaders.ETAG),
+                                       getHeaderValue(response, HttpHeaders.LAST_MODIFIED)));
+
+            return body;
+        }
+    }
+
+    /*
+     * Stale entries are only kept when they carry a validator, so the server can answer 304 instead of the body
+     * */
+    private void addConditionalHeaders(final HttpRequestBase request, final ResponseCache.Entry entry) {
+        if (entry.getEtag() != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.getEtag());
+        }
+        if (entry.getLastModified() != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.getLastModified());
+        }
+    }
+
+    private String getHeaderValue(final HttpResponse response, final String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    /*
+     * Sleep until the window resets once the space has no request left, instead of burning retries on 429
+     * */
+    private void waitForRateLimit()
+            throws InterruptedException {
+        final long waitMillis = rateLimitResetMillis - System.currentTimeMillis();
+
+        if (rateLimitRemaining == 0 && waitMillis > 0) {
+            LOGGER.info(String.format("Rate limit of %s reached, waiting %d seconds", space.getUri(), waitMillis / 1000));
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    private void updateRateLimit(final HttpResponse response) {
+        final String remaining = getHeaderValue(response, RATE_LIMIT_REMAINING);
+        final String reset = getHeaderValue(response, RATE_LIMIT_RESET);
+
+        try {
+            if (remaining != null && reset != null) {
+                rateLimitResetMillis = Long.parseLong(reset.trim()) * 1000;
+                rateLimitRemaining = Integer.parseInt(remaining.trim());
+            }
+        } catch (final NumberFormatException e) {
+            rateLimitRemaining = -1;
+        }
+    }
+
+    private HttpRequestBase createGetRequest(final String url, final String accessToken)
             throws URISyntaxException {
 
         final HttpGet request;
 
-        switch (task.getAuthMethod()) {
-            case API_KEY:
+        switch (space.getAuthMethod()) {
             case OAUTH:
+                request = new HttpGet(url);
+                request.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+                break;
+            case API_KEY:
             default:
-                URI newUrl = new URIBuilder(url).addParameter("apiKey", task.getApiKey()).build();
+                URI newUrl = new URIBuilder(url).addParameter("apiKey", space.getApiKey()).build();
                 request = new HttpGet(newUrl.toString());
                 break;
         }
@@ -116,6 +285,28 @@ public class BacklogClient {
         return request;
     }
 
+    /*
+     * Issues are sorted by creation so that pages stay stable while the space is being updated
+     * */
+    private String getIssuesUrl(final int startAt, final int maxResults) {
+        try {
+            final URIBuilder builder = new URIBuilder(space.getUri() + "/api/v2/issues");
+
+            for (final Long projectId : space.getProjectIds()) {
+                builder.addParameter("projectId[]", String.valueOf(projectId));
+            }
+
+            return builder.addParameter("sort", "created")
+                          .addParameter("order", "asc")
+                          .addParameter("offset", String.valueOf(startAt))
+                          .addParameter("count", String.valueOf(maxResults))
+                          .build()
+                          .toString();
+        } catch (final URISyntaxException e) {
+            throw new ConfigException(String.format("Invalid uri '%s'", space.getUri()), e);
+        }
+    }
+
     private String extractErrorMessages(final String errorResponse) {
         final List<String> messages = new ArrayList<>();
 
@@ -132,6 +323,10 @@ public class BacklogClient {
     }
 
     private String searchBacklogIssues(final PluginTask task, final int startAt, final int maxResults) {
+        return performRequestWithRetry(task, getIssuesUrl(startAt, maxResults));
+    }
+
+    private String performRequestWithRetry(final PluginTask task, final String url) {
         try {
             return RetryExecutor.builder()
                                 .withRetryLimit(task.getRetryLimit())
@@ -142,14 +337,14 @@ public class BacklogClient {
                                     @Override
                                     public String call()
                                             throws Exception {
-                                        return performRequest(task, startAt, maxResults);
+                                        return performRequest(task, url);
                                     }
 
                                     @Override
                                     public boolean isRetryableException(final Exception exception) {
                                         if (exception instanceof BacklogException) {
                                             final int statusCode = ((BacklogException) exception).getStatusCode();
-                                            return statusCode / 100 != 4 || statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == 429;
+                                            return statusCode / 100 != 4 || statusCode == 429;
                                         }
                                         return false;
                                     }
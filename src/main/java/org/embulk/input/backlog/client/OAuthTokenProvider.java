@@ -0,0 +1,189 @@
+package org.embulk.input.backlog.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.BacklogInputPlugin.SpaceTask;
+import org.embulk.input.backlog.exception.BacklogException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * OAuth 2.0 access token of a space, shared by every task of the JVM that uses the same credentials.
+ * The token is refreshed with the refresh token shortly before it expires, and at most once per
+ * rejected token when the API answers 401, so concurrent tasks do not stampede the token endpoint.
+ *
+ * @author thangnc
+ */
+public final class OAuthTokenProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OAuthTokenProvider.class);
+    private static final ConcurrentMap<String, OAuthTokenProvider> PROVIDERS = new ConcurrentHashMap<>();
+    private static final long REFRESH_MARGIN_MILLIS = 60 * 1000;
+
+    private final String tokenUrl;
+    private final TokenEndpoint tokenEndpoint;
+    private final String clientId;
+    private final String clientSecret;
+    private String accessToken;
+    private String refreshToken;
+    private long expiresAtMillis;
+
+    private OAuthTokenProvider(final SpaceTask space) {
+        this(space, null);
+    }
+
+    OAuthTokenProvider(final SpaceTask space, final TokenEndpoint tokenEndpoint) {
+        this.tokenUrl = space.getUri() + "/api/v2/oauth2/token";
+        this.tokenEndpoint = tokenEndpoint == null ? this::postTokenRequest : tokenEndpoint;
+        this.clientId = space.getClientId().orElse(null);
+        this.clientSecret = space.getClientSecret().orElse(null);
+        this.accessToken = space.getAccessToken().orElse(null);
+        this.refreshToken = space.getRefreshToken().orElse(null);
+        // The lifetime of a configured access token is unknown, it is used until the API rejects it
+        this.expiresAtMillis = accessToken == null ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Gets the provider shared by the tasks using the same space and credentials.
+     *
+     * @param space the space task
+     * @return the token provider
+     */
+    public static OAuthTokenProvider of(final SpaceTask space) {
+        final boolean canRefresh = space.getRefreshToken().isPresent()
+                && space.getClientId().isPresent()
+                && space.getClientSecret().isPresent();
+
+        if (!space.getAccessToken().isPresent() && !canRefresh) {
+            throw new ConfigException("'access_token', or 'refresh_token' with 'client_id' and 'client_secret' "
+                                              + "is required if 'auth_method' is 'oauth2'");
+        }
+
+        final String key = String.join("\n",
+                                       space.getUri(),
+                                       space.getClientId().orElse(""),
+                                       space.getRefreshToken().orElse(space.getAccessToken().orElse("")));
+
+        return PROVIDERS.computeIfAbsent(key, ignored -> new OAuthTokenProvider(space));
+    }
+
+    /**
+     * Gets a valid access token, refreshing it first when it expires soon.
+     *
+     * @param client the http client used for the refresh request
+     * @return the access token
+     * @throws BacklogException if the token could not be refreshed
+     */
+    public synchronized String getAccessToken(final CloseableHttpClient client)
+            throws BacklogException {
+        if (accessToken == null || (canRefresh() && System.currentTimeMillis() + REFRESH_MARGIN_MILLIS >= expiresAtMillis)) {
+            refresh(client);
+        }
+
+        return accessToken;
+    }
+
+    /**
+     * Refreshes the token after the API rejected it. Tasks which were rejected with a token another task
+     * already replaced get the new token without another refresh.
+     *
+     * @param client        the http client used for the refresh request
+     * @param rejectedToken the token the API answered 401 for
+     * @return the access token to retry with
+     * @throws BacklogException if the token can not be refreshed
+     */
+    public synchronized String refreshAfterUnauthorized(final CloseableHttpClient client, final String rejectedToken)
+            throws BacklogException {
+        if (!rejectedToken.equals(accessToken)) {
+            return accessToken;
+        }
+        if (!canRefresh()) {
+            throw new BacklogException(HttpStatus.SC_UNAUTHORIZED, "The access token was rejected and no refresh_token is configured");
+        }
+
+        refresh(client);
+        return accessToken;
+    }
+
+    /**
+     * Gets the current refresh token, which differs from the configured one once Backlog rotated it.
+     *
+     * @return the refresh token, null if none is configured
+     */
+    public synchronized String getRefreshToken() {
+        return refreshToken;
+    }
+
+    private boolean canRefresh() {
+        return refreshToken != null && clientId != null && clientSecret != null;
+    }
+
+    private void refresh(final CloseableHttpClient client)
+            throws BacklogException {
+        if (!canRefresh()) {
+            throw new BacklogException(HttpStatus.SC_UNAUTHORIZED, "No refresh_token is configured");
+        }
+
+        final List<NameValuePair> params = new ArrayList<>();
+        params.add(new BasicNameValuePair("grant_type", "refresh_token"));
+        params.add(new BasicNameValuePair("client_id", clientId));
+        params.add(new BasicNameValuePair("client_secret", clientSecret));
+        params.add(new BasicNameValuePair("refresh_token", refreshToken));
+
+        final JsonObject token = new JsonParser().parse(tokenEndpoint.post(client, params)).getAsJsonObject();
+        final JsonElement expiresIn = token.get("expires_in");
+        accessToken = token.get("access_token").getAsString();
+        if (token.has("refresh_token")) {
+            // Backlog rotates the refresh token on every use
+            refreshToken = token.get("refresh_token").getAsString();
+        }
+        expiresAtMillis = expiresIn == null || expiresIn.isJsonNull()
+                ? Long.MAX_VALUE
+                : System.currentTimeMillis() + expiresIn.getAsLong() * 1000;
+
+        LOGGER.info(String.format("Refreshed the access token of %s", tokenUrl));
+    }
+
+    private String postTokenRequest(final CloseableHttpClient client, final List<NameValuePair> params)
+            throws BacklogException {
+        final HttpPost request = new HttpPost(tokenUrl);
+        request.setEntity(new UrlEncodedFormEntity(params, StandardCharsets.UTF_8));
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+            final int statusCode = response.getStatusLine().getStatusCode();
+            final String body = EntityUtils.toString(response.getEntity());
+
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new BacklogException(statusCode, "Could not refresh the access token: " + body);
+            }
+
+            return body;
+        } catch (final IOException e) {
+            throw new BacklogException(-1, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends the form of a token request and returns the response body.
+     */
+    interface TokenEndpoint {
+        String post(CloseableHttpClient client, List<NameValuePair> params)
+                throws BacklogException;
+    }
+}
@@ -0,0 +1,313 @@
+package org.embulk.input.backlog.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.BacklogInputPlugin.PluginTask;
+import org.embulk.input.backlog.BacklogInputPlugin.SpaceTask;
+import org.embulk.input.backlog.Issue;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Resolves reference columns such as {@code projectId->projectKey} or {@code status.id->name}.
+ * The left side is the path of an id in the issue, the right side the attribute of the referenced object.
+ * The reference data of a project (statuses, issue types, categories, versions, users and custom fields)
+ * is fetched once per run, all of its kinds concurrently. The projects of {@code project_ids} are all
+ * fetched as soon as the cache is created, other projects the first time one of their issues is seen.
+ *
+ * @author thangnc
+ */
+public class ReferenceDataCache
+        implements AutoCloseable {
+
+    public static final String REFERENCE_SEPARATOR = "->";
+    private static final int PREFETCH_THREADS = 4;
+
+    private final Function<String, JsonElement> fetcher;
+    private final List<ReferenceColumn> columns;
+    private final Set<Kind> kinds = EnumSet.noneOf(Kind.class);
+    private final ConcurrentMap<Long, CompletableFuture<Map<Kind, Map<Long, JsonObject>>>> projects = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    /**
+     * @param backlogClient the client of the space
+     * @param task          the task
+     * @param space         the space, the reference data of its {@code project_ids} is fetched right away
+     * @param schema        the schema
+     */
+    public ReferenceDataCache(final BacklogClient backlogClient, final PluginTask task, final SpaceTask space, final Schema schema) {
+        this(path -> backlogClient.getJson(task, path), schema, space.getProjectIds());
+    }
+
+    ReferenceDataCache(final Function<String, JsonElement> fetcher, final Schema schema, final List<Long> projectIds) {
+        this.fetcher = fetcher;
+        this.columns = new ArrayList<>();
+
+        for (final Column column : schema.getColumns()) {
+            if (column.getName().contains(REFERENCE_SEPARATOR)) {
+                final ReferenceColumn referenceColumn = ReferenceColumn.parse(column.getName());
+                columns.add(referenceColumn);
+                kinds.add(referenceColumn.kind);
+            }
+        }
+        this.executor = columns.isEmpty() ? null : Executors.newFixedThreadPool(PREFETCH_THREADS, runnable -> {
+            final Thread thread = new Thread(runnable, "backlog-reference-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Known projects are fetched together up front instead of stalling the first issue of each of them
+        if (executor != null) {
+            for (final Long projectId : projectIds) {
+                projects.computeIfAbsent(projectId, this::prefetch);
+            }
+        }
+    }
+
+    /**
+     * Parses every reference column of the schema, so that a misspelled reference fails once at config time.
+     *
+     * @param schema the schema
+     * @throws ConfigException if a reference column is not supported
+     */
+    public static void validate(final Schema schema) {
+        for (final Column column : schema.getColumns()) {
+            if (column.getName().contains(REFERENCE_SEPARATOR)) {
+                ReferenceColumn.parse(column.getName());
+            }
+        }
+    }
+
+    /**
+     * Sets the value of every reference column of the schema on the issue.
+     *
+     * @param issue the issue
+     */
+    public void resolve(final Issue issue) {
+        if (columns.isEmpty()) {
+            return;
+        }
+
+        final JsonElement projectId = issue.getValue("projectId");
+        if (!projectId.isJsonPrimitive()) {
+            return;
+        }
+
+        final Map<Kind, Map<Long, JsonObject>> references = getProjectReferences(projectId.getAsLong());
+        for (final ReferenceColumn column : columns) {
+            issue.setVirtualValue(column.name, lookup(references.get(column.kind), issue.getValue(column.idPath), column.attribute));
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private Map<Kind, Map<Long, JsonObject>> getProjectReferences(final long projectId) {
+        try {
+            return projects.computeIfAbsent(projectId, this::prefetch).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConfigException(e.getCause());
+        }
+    }
+
+    /*
+     * Fetch every kind of the project in parallel, the custom fields response serves both custom field kinds
+     * */
+    private CompletableFuture<Map<Kind, Map<Long, JsonObject>>> prefetch(final long projectId) {
+        final Map<String, CompletableFuture<JsonElement>> responses = new HashMap<>();
+
+        for (final Kind kind : kinds) {
+            responses.computeIfAbsent(kind.getPath(projectId),
+                                      path -> CompletableFuture.supplyAsync(() -> fetcher.apply(path), executor));
+        }
+
+        return CompletableFuture.allOf(responses.values().toArray(new CompletableFuture[0]))
+                                .thenApply(ignored -> {
+                                    final Map<Kind, Map<Long, JsonObject>> references = new EnumMap<>(Kind.class);
+                                    for (final Kind kind : kinds) {
+                                        references.put(kind, kind.index(responses.get(kind.getPath(projectId)).join()));
+                                    }
+                                    return references;
+                                });
+    }
+
+    /*
+     * Arrays are resolved element-wise and flattened, i.e the values of all custom fields of an issue
+     * Objects are resolved by their id, i.e the items of a multiple list custom field
+     * */
+    private static JsonElement lookup(final Map<Long, JsonObject> references, final JsonElement id, final String attribute) {
+        if (id.isJsonArray()) {
+            final JsonArray values = new JsonArray();
+            for (final JsonElement element : id.getAsJsonArray()) {
+                final JsonElement value = lookup(references, element, attribute);
+                if (value.isJsonArray()) {
+                    values.addAll(value.getAsJsonArray());
+                } else {
+                    values.add(value);
+                }
+            }
+            return values;
+        }
+
+        if (id.isJsonObject() && id.getAsJsonObject().has("id")) {
+            return lookup(references, id.getAsJsonObject().get("id"), attribute);
+        }
+
+        if (!id.isJsonPrimitive() || !id.getAsJsonPrimitive().isNumber()) {
+            return JsonNull.INSTANCE;
+        }
+
+        final JsonObject reference = references.get(id.getAsLong());
+        if (reference == null || !reference.has(attribute)) {
+            return JsonNull.INSTANCE;
+        }
+
+        return reference.get(attribute);
+    }
+
+    private static Map<Long, JsonObject> indexById(final Iterable<JsonElement> elements) {
+        final Map<Long, JsonObject> index = new HashMap<>();
+
+        for (final JsonElement element : elements) {
+            if (element.isJsonObject() && element.getAsJsonObject().has("id")) {
+                index.put(element.getAsJsonObject().get("id").getAsLong(), element.getAsJsonObject());
+            }
+        }
+
+        return index;
+    }
+
+    private static final class ReferenceColumn {
+        private final String name;
+        private final String idPath;
+        private final Kind kind;
+        private final String attribute;
+
+        private ReferenceColumn(final String name, final String idPath, final Kind kind, final String attribute) {
+            this.name = name;
+            this.idPath = idPath;
+            this.kind = kind;
+            this.attribute = attribute;
+        }
+
+        /*
+         * "status.id->name" and "statusId->name" both refer to the statuses of the project
+         * "customFields.value.id->name" refers to the items of list custom fields
+         * */
+        private static ReferenceColumn parse(final String name) {
+            final String[] parts = name.split(REFERENCE_SEPARATOR, 2);
+            final String idPath = parts[0].trim();
+            final String attribute = parts[1].trim();
+
+            String reference = idPath.substring(idPath.lastIndexOf('.') + 1);
+            if (reference.equals("id") && idPath.contains(".")) {
+                final String parent = idPath.substring(0, idPath.lastIndexOf('.'));
+                reference = parent.substring(parent.lastIndexOf('.') + 1);
+            } else if (reference.endsWith("Id")) {
+                reference = reference.substring(0, reference.length() - 2);
+            }
+            if (reference.equals("value") && idPath.startsWith("customFields.")) {
+                reference = "items";
+            }
+
+            final Kind kind = Kind.findByReference(reference);
+            if (kind == null || attribute.isEmpty()) {
+                throw new ConfigException(String.format("Unknown reference column '%s'. Supported references are %s",
+                                                        name, Kind.REFERENCES.keySet()));
+            }
+
+            return new ReferenceColumn(name, idPath, kind, attribute);
+        }
+    }
+
+    private enum Kind {
+        PROJECT(""),
+        STATUS("/statuses"),
+        ISSUE_TYPE("/issueTypes"),
+        CATEGORY("/categories"),
+        VERSION("/versions"),
+        USER("/users"),
+        CUSTOM_FIELD("/customFields"),
+        CUSTOM_FIELD_ITEM("/customFields");
+
+        private static final Map<String, Kind> REFERENCES;
+
+        static {
+            final Map<String, Kind> references = new HashMap<>();
+            references.put("project", PROJECT);
+            references.put("status", STATUS);
+            references.put("issueType", ISSUE_TYPE);
+            references.put("category", CATEGORY);
+            references.put("version", VERSION);
+            references.put("versions", VERSION);
+            references.put("milestone", VERSION);
+            references.put("user", USER);
+            references.put("assignee", USER);
+            references.put("createdUser", USER);
+            references.put("updatedUser", USER);
+            references.put("customField", CUSTOM_FIELD);
+            references.put("customFields", CUSTOM_FIELD);
+            references.put("item", CUSTOM_FIELD_ITEM);
+            references.put("items", CUSTOM_FIELD_ITEM);
+            REFERENCES = Collections.unmodifiableMap(references);
+        }
+
+        private final String path;
+
+        Kind(final String path) {
+            this.path = path;
+        }
+
+        private static Kind findByReference(final String reference) {
+            return REFERENCES.get(reference);
+        }
+
+        private String getPath(final long projectId) {
+            return "/api/v2/projects/" + projectId + path;
+        }
+
+        private Map<Long, JsonObject> index(final JsonElement response) {
+            switch (this) {
+                case PROJECT:
+                    return indexById(Collections.singletonList(response));
+                case CUSTOM_FIELD_ITEM:
+                    final List<JsonElement> items = new ArrayList<>();
+                    for (final JsonElement customField : response.getAsJsonArray()) {
+                        final JsonElement fieldItems = customField.getAsJsonObject().get("items");
+                        if (fieldItems != null && fieldItems.isJsonArray()) {
+                            fieldItems.getAsJsonArray().forEach(items::add);
+                        }
+                    }
+                    return indexById(items);
+                default:
+                    return indexById(response.getAsJsonArray());
+            }
+        }
+    }
+}
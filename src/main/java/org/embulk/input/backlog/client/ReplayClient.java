@@ -0,0 +1,158 @@
+package org.embulk.input.backlog.client;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.BacklogInputPlugin.PluginTask;
+import org.embulk.input.backlog.Issue;
+import org.embulk.input.backlog.helpers.BacklogHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Reads issue pages previously captured from the Backlog API out of a local directory.
+ * Files ending with {@code .json} hold a JSON array (a page as returned by the API) or a single issue,
+ * files ending with {@code .ndjson} or {@code .jsonl} hold one issue per line. Files are read in name order.
+ *
+ * @author thangnc
+ */
+public class ReplayClient {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplayClient.class);
+
+    public ReplayClient() {
+    }
+
+    public List<Issue> readIssues(final PluginTask task, final int maxResults) {
+        final List<Issue> issues = new ArrayList<>();
+        readIssues(task, maxResults, issues::add);
+
+        return issues;
+    }
+
+    /**
+     * Streams the captured issues to the consumer without holding a whole file in memory.
+     *
+     * @param task       the task
+     * @param maxResults the maximum number of issues to read
+     * @param consumer   the consumer of each issue
+     * @return the number of issues read
+     */
+    public long readIssues(final PluginTask task, final long maxResults, final Consumer<Issue> consumer) {
+        final String replayDir = task.getReplayDir()
+                                     .orElseThrow(() -> new ConfigException("'replay_dir' is required when 'source' is 'replay'"));
+
+        return readIssues(Paths.get(replayDir), maxResults, consumer);
+    }
+
+    long readIssues(final Path replayDir, final long maxResults, final Consumer<Issue> consumer) {
+        long count = 0;
+
+        for (final Path file : listFiles(replayDir)) {
+            if (count >= maxResults) {
+                break;
+            }
+
+            LOGGER.info(String.format("Replaying issues from '%s'", file));
+            try {
+                if (file.getFileName().toString().endsWith(".json")) {
+                    count += readJsonFile(file, maxResults - count, consumer);
+                } else {
+                    count += readNdjsonFile(file, maxResults - count, consumer);
+                }
+            } catch (final IOException e) {
+                throw newReadException(file, e);
+            }
+        }
+
+        return count;
+    }
+
+    private List<Path> listFiles(final Path replayDir) {
+        final List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(replayDir, "*.{json,ndjson,jsonl}")) {
+            for (final Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        } catch (final IOException e) {
+            throw new ConfigException(String.format("Could not list replay_dir '%s': %s", replayDir, e.getMessage()), e);
+        }
+        files.sort(null);
+
+        return files;
+    }
+
+    private long readJsonFile(final Path file, final long maxResults, final Consumer<Issue> consumer)
+            throws IOException {
+        final JsonParser parser = new JsonParser();
+        long count = 0;
+
+        try (JsonReader reader = new JsonReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                consumer.accept(parseIssue(file, () -> parser.parse(reader)));
+                return 1;
+            }
+
+            reader.beginArray();
+            while (count < maxResults && reader.hasNext()) {
+                consumer.accept(parseIssue(file, () -> parser.parse(reader)));
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private long readNdjsonFile(final Path file, final long maxResults, final Consumer<Issue> consumer)
+            throws IOException {
+        final JsonParser parser = new JsonParser();
+        long count = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while (count < maxResults && (line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+
+                final String json = line;
+                consumer.accept(parseIssue(file, () -> parser.parse(json)));
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /*
+     * Only parse errors are blamed on the file, failures of the consumer are passed on as they are
+     * */
+    private Issue parseIssue(final Path file, final Supplier<JsonElement> parse) {
+        try {
+            return BacklogHelper.toIssue(parse.get().getAsJsonObject());
+        } catch (final JsonParseException | IllegalStateException e) {
+            throw newReadException(file, e);
+        }
+    }
+
+    private ConfigException newReadException(final Path file, final Exception e) {
+        return new ConfigException(String.format("Could not read replay file '%s': %s", file, e.getMessage()), e);
+    }
+}
@@ -0,0 +1,343 @@
+package org.embulk.input.backlog.client;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URIBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * On-disk cache of Backlog API responses, keyed by the normalized request URL without credentials.
+ * Entries older than the TTL are kept as long as they carry a validator so they can be revalidated
+ * with a conditional request. The directory is bounded by total body size with LRU eviction.
+ *
+ * @author thangnc
+ */
+public final class ResponseCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseCache.class);
+    private static final ConcurrentMap<Path, ResponseCache> INSTANCES = new ConcurrentHashMap<>();
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String[] CREDENTIAL_PARAMETERS = {"apiKey", "access_token"};
+
+    private final Path directory;
+    private volatile long ttlMillis;
+    private long maxBytes;
+    // Access-ordered, so iteration starts from the least recently used key
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private ResponseCache(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the cache stored in the given directory. Instances are shared per directory in the JVM,
+     * the limits of the latest call apply to every user of the directory.
+     *
+     * @param directory  the cache directory
+     * @param ttlSeconds seconds a cached response is served without revalidation
+     * @param maxBytes   the upper bound of the total size of cached bodies
+     * @return the response cache
+     */
+    public static ResponseCache open(final String directory, final long ttlSeconds, final long maxBytes) {
+        final Path path = Paths.get(directory).toAbsolutePath().normalize();
+
+        final ResponseCache cache = INSTANCES.computeIfAbsent(path, ResponseCache::new);
+        cache.configure(ttlSeconds * 1000, maxBytes);
+
+        return cache;
+    }
+
+    /**
+     * Normalizes a request URL into a cache key: credentials are dropped, scheme and host are lower-cased
+     * and the query parameters are sorted.
+     *
+     * @param url the request url
+     * @return the cache key
+     */
+    public static String toKey(final String url) {
+        try {
+            final URIBuilder builder = new URIBuilder(url);
+            final List<NameValuePair> params = new ArrayList<>(builder.getQueryParams());
+
+            for (final String credential : CREDENTIAL_PARAMETERS) {
+                params.removeIf(param -> credential.equals(param.getName()));
+            }
+            params.sort(Comparator.comparing(NameValuePair::getName)
+                                  .thenComparing(param -> String.valueOf(param.getValue())));
+
+            builder.setScheme(builder.getScheme() == null ? null : builder.getScheme().toLowerCase(Locale.ENGLISH));
+            builder.setHost(builder.getHost() == null ? null : builder.getHost().toLowerCase(Locale.ENGLISH));
+            builder.setParameters(params);
+            builder.setFragment(null);
+
+            return sha256(builder.build().toString());
+        } catch (final URISyntaxException e) {
+            return sha256(url);
+        }
+    }
+
+    /**
+     * Gets the cached response of the key, fresh or not.
+     *
+     * @param key the cache key
+     * @return the cached entry if present
+     */
+    public synchronized Optional<Entry> get(final String key) {
+        if (sizes.get(key) == null) {
+            return Optional.empty();
+        }
+
+        try {
+            final Properties meta = new Properties();
+            try (InputStream in = Files.newInputStream(metaPath(key))) {
+                meta.load(in);
+            }
+            final String body = new String(Files.readAllBytes(bodyPath(key)), StandardCharsets.UTF_8);
+            final Entry entry = new Entry(body,
+                                          meta.getProperty("etag"),
+                                          meta.getProperty("lastModified"),
+                                          Long.parseLong(meta.getProperty("storedAt", "0")));
+
+            if (!entry.isFresh() && !entry.hasValidator()) {
+                remove(key);
+                return Optional.empty();
+            }
+            Files.setLastModifiedTime(bodyPath(key), FileTime.fromMillis(System.currentTimeMillis()));
+
+            return Optional.of(entry);
+        } catch (final IOException | RuntimeException e) {
+            LOGGER.warn(String.format("Dropping unreadable cache entry '%s': %s", key, e.getMessage()));
+            remove(key);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores a response body with its validators, evicting the least recently used entries when needed.
+     *
+     * @param key          the cache key
+     * @param body         the response body
+     * @param etag         the ETag response header, may be null
+     * @param lastModified the Last-Modified response header, may be null
+     */
+    public synchronized void put(final String key, final String body, final String etag, final String lastModified) {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxBytes) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(directory);
+            writeAtomically(bodyPath(key), bytes);
+            writeMeta(key, etag, lastModified, System.currentTimeMillis());
+
+            final Long previous = sizes.put(key, (long) bytes.length);
+            totalBytes += bytes.length - (previous == null ? 0 : previous);
+            evict();
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Could not write cache entry '%s': %s", key, e.getMessage()));
+            remove(key);
+        }
+    }
+
+    /**
+     * Marks a stale entry as fresh again after the server answered 304 Not Modified.
+     *
+     * @param key   the cache key
+     * @param entry the revalidated entry
+     */
+    public synchronized void revalidate(final String key, final Entry entry) {
+        try {
+            writeMeta(key, entry.getEtag(), entry.getLastModified(), System.currentTimeMillis());
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Could not refresh cache entry '%s': %s", key, e.getMessage()));
+        }
+    }
+
+    private synchronized void configure(final long ttlMillis, final long maxBytes) {
+        this.ttlMillis = ttlMillis;
+        this.maxBytes = maxBytes;
+
+        if (loaded) {
+            evict();
+        } else {
+            load();
+            loaded = true;
+        }
+    }
+
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        final List<Path> bodies = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + BODY_SUFFIX)) {
+            stream.forEach(bodies::add);
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Could not read cache directory '%s': %s", directory, e.getMessage()));
+            return;
+        }
+
+        bodies.sort(Comparator.comparing(ResponseCache::lastModifiedMillis));
+        for (final Path body : bodies) {
+            final String fileName = body.getFileName().toString();
+            final String key = fileName.substring(0, fileName.length() - BODY_SUFFIX.length());
+
+            try {
+                final long size = Files.size(body);
+                sizes.put(key, size);
+                totalBytes += size;
+            } catch (final IOException e) {
+                remove(key);
+            }
+        }
+        evict();
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Long>> iterator = sizes.entrySet().iterator();
+
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+            deleteFiles(eldest.getKey());
+        }
+    }
+
+    private void remove(final String key) {
+        final Long size = sizes.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        deleteFiles(key);
+    }
+
+    private void deleteFiles(final String key) {
+        try {
+            Files.deleteIfExists(bodyPath(key));
+            Files.deleteIfExists(metaPath(key));
+        } catch (final IOException e) {
+            LOGGER.warn(String.format("Could not delete cache entry '%s': %s", key, e.getMessage()));
+        }
+    }
+
+    private void writeMeta(final String key, final String etag, final String lastModified, final long storedAt)
+            throws IOException {
+        final Properties meta = new Properties();
+        if (etag != null) {
+            meta.setProperty("etag", etag);
+        }
+        if (lastModified != null) {
+            meta.setProperty("lastModified", lastModified);
+        }
+        meta.setProperty("storedAt", Long.toString(storedAt));
+
+        final Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            meta.store(out, null);
+        }
+        Files.move(temporary, metaPath(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeAtomically(final Path target, final byte[] bytes)
+            throws IOException {
+        final Path temporary = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        Files.write(temporary, bytes);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path bodyPath(final String key) {
+        return directory.resolve(key + BODY_SUFFIX);
+    }
+
+    private Path metaPath(final String key) {
+        return directory.resolve(key + META_SUFFIX);
+    }
+
+    private static long lastModifiedMillis(final Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (final IOException e) {
+            return 0L;
+        }
+    }
+
+    private static String sha256(final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                builder.append(String.format("%02x", b));
+            }
+            return builder.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A cached response.
+     */
+    public final class Entry {
+        private final String body;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+
+        private Entry(final String body, final String etag, final String lastModified, final long storedAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public boolean isFresh() {
+            return System.currentTimeMillis() - storedAt < ttlMillis;
+        }
+
+        public boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.embulk.input.backlog.helpers;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigSource;
 import org.embulk.input.backlog.BacklogInputPlugin.PluginTask;
 import org.embulk.input.backlog.Issue;
@@ -12,9 +13,15 @@ import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
 import org.embulk.spi.time.Timestamp;
 import org.embulk.spi.time.TimestampParser;
+import org.embulk.spi.type.Types;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -25,11 +32,31 @@ public final class BacklogHelper {
     private BacklogHelper() {
     }
 
+    /**
+     * Builds the parser of each timestamp column from its {@code format}, or the default pattern.
+     * Building a parser costs far more than parsing a value, so callers build them once and reuse them.
+     *
+     * @param schema the schema
+     * @param task   the task holding the column configs
+     * @return the parsers indexed by column index, null for the columns that are not timestamps
+     */
+    public static TimestampParser[] createTimestampParsers(final Schema schema, final PluginTask task) {
+        final TimestampParser[] parsers = new TimestampParser[schema.getColumnCount()];
+
+        for (final Column column : schema.getColumns()) {
+            if (Types.TIMESTAMP.equals(column.getType())) {
+                parsers[column.getIndex()] = TimestampParser.of(getTimestampPattern(task, column), "UTC");
+            }
+        }
+
+        return parsers;
+    }
+
     /*
-     * For getting the timestamp value of the node
-     * Sometime if the parser could not parse the value then return null
+     * For getting the format of the timestamp column
+     * The default pattern is used when the column has no format
      * */
-    private static Timestamp getTimestampValue(final PluginTask task, final Column column, final String value) {
+    private static String getTimestampPattern(final PluginTask task, final Column column) {
         final List<ColumnConfig> columnConfigs = task.getColumns().getColumns();
         String pattern = DEFAULT_TIMESTAMP_PATTERN;
         for (final ColumnConfig columnConfig : columnConfigs) {
@@ -41,7 +68,14 @@ public final class BacklogHelper {
                 break;
             }
         }
-        final TimestampParser parser = TimestampParser.of(pattern, "UTC");
+        return pattern;
+    }
+
+    /*
+     * For getting the timestamp value of the node
+     * Sometime if the parser could not parse the value then return null
+     * */
+    private static Timestamp getTimestampValue(final TimestampParser parser, final String value) {
         Timestamp result = null;
         try {
             result = parser.parse(value);
@@ -90,15 +124,23 @@ public final class BacklogHelper {
     }
 
     public static void addRecord(final Issue issue, final Schema schema, final PluginTask task, final PageBuilder pageBuilder) {
+        addRow(convertRecord(issue, schema, createTimestampParsers(schema, task)), schema, pageBuilder);
+    }
+
+    /*
+     * Convert the issue into the values of one row, indexed by column index
+     * It does not touch the page builder so it can run on any thread, given parsers that thread owns
+     * */
+    public static Object[] convertRecord(final Issue issue, final Schema schema, final TimestampParser[] timestampParsers) {
+        final Object[] row = new Object[schema.getColumnCount()];
+
         schema.visitColumns(new ColumnVisitor() {
             @Override
             public void jsonColumn(final Column column) {
                 final JsonElement data = issue.getValue(column.getName());
 
-                if (data.isJsonNull() || data.isJsonPrimitive()) {
-                    pageBuilder.setNull(column);
-                } else {
-                    pageBuilder.setString(column, data.getAsString());
+                if (!data.isJsonNull() && !data.isJsonPrimitive()) {
+                    row[column.getIndex()] = data.getAsString();
                 }
             }
 
@@ -107,21 +149,21 @@ public final class BacklogHelper {
                 final JsonElement data = issue.getValue(column.getName());
 
                 if (data.isJsonNull()) {
-                    pageBuilder.setNull(column);
+                    row[column.getIndex()] = null;
                 } else if (data.isJsonPrimitive()) {
-                    pageBuilder.setString(column, data.getAsString());
+                    row[column.getIndex()] = data.getAsString();
                 } else if (data.isJsonArray()) {
-                    pageBuilder.setString(column, StreamSupport.stream(data.getAsJsonArray().spliterator(), false)
-                                                               .map(obj -> {
-                                                                   if (obj.isJsonPrimitive()) {
-                                                                       return obj.getAsString();
-                                                                   } else {
-                                                                       return obj.toString();
-                                                                   }
-                                                               })
-                                                               .collect(Collectors.joining(",")));
+                    row[column.getIndex()] = StreamSupport.stream(data.getAsJsonArray().spliterator(), false)
+                                                          .map(obj -> {
+                                                              if (obj.isJsonPrimitive()) {
+                                                                  return obj.getAsString();
+                                                              } else {
+                                                                  return obj.toString();
+                                                              }
+                                                          })
+                                                          .collect(Collectors.joining(","));
                 } else {
-                    pageBuilder.setString(column, data.toString());
+                    row[column.getIndex()] = data.toString();
                 }
             }
 
@@ -129,48 +171,93 @@ public final class BacklogHelper {
             public void timestampColumn(final Column column) {
                 final JsonElement data = issue.getValue(column.getName());
 
-                if (data.isJsonNull() || data.isJsonObject() || data.isJsonArray()) {
+                if (!data.isJsonNull() && !data.isJsonObject() && !data.isJsonArray()) {
+                    row[column.getIndex()] = getTimestampValue(timestampParsers[column.getIndex()], data.getAsString());
+                }
+            }
+
+            @Override
+            public void booleanColumn(final Column column) {
+                row[column.getIndex()] = getBooleanValue(issue.getValue(column.getName()));
+            }
+
+            @Override
+            public void longColumn(final Column column) {
+                row[column.getIndex()] = getLongValue(issue.getValue(column.getName()));
+            }
+
+            @Override
+            public void doubleColumn(final Column column) {
+                row[column.getIndex()] = getDoubleValue(issue.getValue(column.getName()));
+            }
+        });
+
+        return row;
+    }
+
+    /*
+     * Copy the values produced by convertRecord to the page builder
+     * Missing values are written as null
+     * */
+    public static void addRow(final Object[] row, final Schema schema, final PageBuilder pageBuilder) {
+        schema.visitColumns(new ColumnVisitor() {
+            @Override
+            public void jsonColumn(final Column column) {
+                stringColumn(column);
+            }
+
+            @Override
+            public void stringColumn(final Column column) {
+                final Object value = row[column.getIndex()];
+
+                if (value == null) {
                     pageBuilder.setNull(column);
                 } else {
-                    final Timestamp value = getTimestampValue(task, column, data.getAsString());
-                    if (value == null) {
-                        pageBuilder.setNull(column);
-                    } else {
-                        pageBuilder.setTimestamp(column, value);
-                    }
+                    pageBuilder.setString(column, (String) value);
+                }
+            }
+
+            @Override
+            public void timestampColumn(final Column column) {
+                final Object value = row[column.getIndex()];
+
+                if (value == null) {
+                    pageBuilder.setNull(column);
+                } else {
+                    pageBuilder.setTimestamp(column, (Timestamp) value);
                 }
             }
 
             @Override
             public void booleanColumn(final Column column) {
-                final Boolean value = getBooleanValue(issue.getValue(column.getName()));
+                final Object value = row[column.getIndex()];
 
                 if (value == null) {
                     pageBuilder.setNull(column);
                 } else {
-                    pageBuilder.setBoolean(column, value);
+                    pageBuilder.setBoolean(column, (Boolean) value);
                 }
             }
 
             @Override
             public void longColumn(final Column column) {
-                final Long value = getLongValue(issue.getValue(column.getName()));
+                final Object value = row[column.getIndex()];
 
                 if (value == null) {
                     pageBuilder.setNull(column);
                 } else {
-                    pageBuilder.setLong(column, value);
+                    pageBuilder.setLong(column, (Long) value);
                 }
             }
 
             @Override
             public void doubleColumn(final Column column) {
-                final Double value = getDoubleValue(issue.getValue(column.getName()));
+                final Object value = row[column.getIndex()];
 
                 if (value == null) {
                     pageBuilder.setNull(column);
                 } else {
-                    pageBuilder.setDouble(column, value);
+                    pageBuilder.setDouble(column, (Double) value);
                 }
             }
         });
@@ -178,6 +265,42 @@ public final class BacklogHelper {
         pageBuilder.addRecord();
     }
 
+    /*
+     * Build an issue from one element of the issues API response
+     * Shared by the live and the replay source so both go through the same conversion
+     * */
+    public static Issue toIssue(final JsonObject json) {
+        final Set<Map.Entry<String, JsonElement>> entries = json.entrySet();
+        json.remove("sharedFiles");
+        json.remove("attachments");
+        json.remove("stars");
+
+        // Merged all properties in fields to the object
+        for (final Map.Entry<String, JsonElement> entry : entries) {
+            json.add(entry.getKey(), entry.getValue());
+        }
+
+        return new Issue(json);
+    }
+
+    /*
+     * The host identifies the space, i.e "spaceKey.backlog.com" for https://spaceKey.backlog.com
+     * The space key alone is not enough, the same key can exist on backlog.com and backlog.jp
+     * */
+    public static String getSpaceHost(final String uri) {
+        final String host;
+        try {
+            host = new URI(uri).getHost();
+        } catch (final URISyntaxException e) {
+            throw new ConfigException(String.format("Invalid uri '%s'", uri), e);
+        }
+        if (host == null) {
+            throw new ConfigException(String.format("Invalid uri '%s', the host of the space is missing", uri));
+        }
+
+        return host.toLowerCase(Locale.ENGLISH);
+    }
+
     public static LinkedHashMap<String, Object> toLinkedHashMap(final JsonObject flt) {
         final LinkedHashMap<String, Object> result = new LinkedHashMap<>();
 
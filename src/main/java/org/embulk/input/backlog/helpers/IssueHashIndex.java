@@ -0,0 +1,263 @@
+package org.embulk.input.backlog.helpers;
+
+import com.google.gson.JsonElement;
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.Issue;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * File-backed index of issue id to the hash of its projected columns, used to emit only the issues
+ * whose loaded content changed since the previous run.
+ * Entries are kept in an open-addressing long to long map so that large spaces stay compact in memory.
+ * A run writes the index next to the committed one and {@link #commit(String)} promotes it once the
+ * transaction succeeded, so a failed load does not mark its issues as delivered.
+ * Only the issues seen by the run are written, so deleted issues, or issues no longer matched by
+ * {@code project_ids}, drop out of the index instead of growing it forever.
+ */
+public final class IssueHashIndex {
+
+    private static final int MAGIC = 0x42484931;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final Path path;
+    private long[] keys;
+    private long[] values;
+    private boolean[] seen;
+    private int size;
+    private int seenSize;
+
+    private IssueHashIndex(final Path path, final int expectedSize) {
+        this.path = path;
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Loads the committed index, or creates an empty one when the file does not exist yet.
+     *
+     * @param path the index file path
+     * @return the issue hash index
+     */
+    public static IssueHashIndex load(final String path) {
+        final Path file = Paths.get(path);
+        if (!Files.exists(file)) {
+            return new IssueHashIndex(file, 0);
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new ConfigException(String.format("'%s' is not a delta index file", path));
+            }
+
+            final int count = in.readInt();
+            final IssueHashIndex index = new IssueHashIndex(file, count);
+            for (int i = 0; i < count; i++) {
+                index.put(in.readLong(), in.readLong(), false);
+            }
+
+            return index;
+        } catch (final IOException e) {
+            throw new ConfigException(String.format("Could not read delta index '%s': %s", path, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Promotes the index written by the last run to the committed one.
+     *
+     * @param path the index file path
+     */
+    public static void commit(final String path) {
+        final Path file = Paths.get(path);
+        final Path pending = pendingPath(file);
+
+        try {
+            if (Files.exists(pending)) {
+                Files.move(pending, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (final IOException e) {
+            throw new ConfigException(String.format("Could not commit delta index '%s': %s", path, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * Records the current content of the issue and tells whether it differs from the previous run.
+     * Issues without a numeric id are always reported as changed.
+     *
+     * @param issue  the issue
+     * @param schema the schema whose columns are compared
+     * @return true if the issue is new or its projected content changed
+     */
+    public boolean update(final Issue issue, final Schema schema) {
+        final Long id = getId(issue);
+
+        return id == null || update(id, hash(issue, schema));
+    }
+
+    /**
+     * Records a hash computed beforehand with {@link #hash(Issue, Schema)}, i.e on a conversion worker.
+     *
+     * @param id   the issue id
+     * @param hash the hash of the projected columns
+     * @return true if the issue is new or its projected content changed
+     */
+    public boolean update(final long id, final long hash) {
+        final Long previous = get(id);
+        put(id, hash, true);
+
+        return previous == null || previous != hash;
+    }
+
+    /*
+     * The numeric id of the issue, null when missing so that the issue is always emitted
+     * */
+    static Long getId(final Issue issue) {
+        final JsonElement id = issue.getValue("id");
+        if (!id.isJsonPrimitive() || !id.getAsJsonPrimitive().isNumber()) {
+            return null;
+        }
+
+        return id.getAsLong();
+    }
+
+    /**
+     * Writes the index next to the committed file, see {@link #commit(String)}.
+     */
+    public void save() {
+        final Path pending = pendingPath(path);
+
+        try {
+            if (path.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(path.toAbsolutePath().getParent());
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pending)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(seenSize);
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i] != EMPTY && seen[i]) {
+                        out.writeLong(keys[i]);
+                        out.writeLong(values[i]);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new ConfigException(String.format("Could not write delta index '%s': %s", pending, e.getMessage()), e);
+        }
+    }
+
+    /*
+     * FNV-1a over the name and the JSON text of each column value
+     * Only the configured columns take part so changes to fields that are not loaded are ignored
+     * */
+    static long hash(final Issue issue, final Schema schema) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (final Column column : schema.getColumns()) {
+            hash = hash(hash, column.getName());
+            hash = hash(hash, issue.getValue(column.getName()).toString());
+        }
+
+        return hash;
+    }
+
+    private static long hash(final long seed, final String value) {
+        long hash = seed;
+
+        for (final byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+        // Separator so that ("ab", "c") and ("a", "bc") differ
+        hash ^= 0xff;
+        hash *= FNV_PRIME;
+
+        return hash;
+    }
+
+    private Long get(final long key) {
+        for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+
+        return null;
+    }
+
+    private void put(final long key, final long value, final boolean seenByRun) {
+        if (key == EMPTY) {
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            rehash();
+        }
+
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & (keys.length - 1);
+        }
+        if (keys[i] == EMPTY) {
+            size++;
+        }
+        if (seenByRun && !seen[i]) {
+            seen[i] = true;
+            seenSize++;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    private void rehash() {
+        final long[] oldKeys = keys;
+        final long[] oldValues = values;
+        final boolean[] oldSeen = seen;
+
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i], oldSeen[i]);
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        seen = new boolean[capacity];
+        size = 0;
+        seenSize = 0;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private int slot(final long key) {
+        final long mixed = key * 0x9e3779b97f4a7c15L;
+        return (int) (mixed ^ (mixed >>> 32)) & (keys.length - 1);
+    }
+
+    private static int capacityFor(final int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+
+        return capacity;
+    }
+
+    private static Path pendingPath(final Path path) {
+        return path.resolveSibling(path.getFileName() + PENDING_SUFFIX);
+    }
+}
@@ -0,0 +1,165 @@
+package org.embulk.input.backlog.helpers;
+
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.BacklogInputPlugin.PluginTask;
+import org.embulk.input.backlog.Issue;
+import org.embulk.spi.PageBuilder;
+import org.embulk.spi.Schema;
+import org.embulk.spi.time.TimestampParser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Converts issues into rows on a pool of worker threads while the task thread, which owns the
+ * {@link PageBuilder}, only copies the converted rows in the order the issues were added.
+ * When a delta index is given, the content hash is computed on the workers as well and only the
+ * index lookup stays on the task thread.
+ * With a single thread the conversion runs inline exactly like {@link BacklogHelper#addRecord}.
+ */
+public final class ParallelRecordWriter
+        implements AutoCloseable {
+
+    // Rows converted ahead of the page builder per worker, bounds the memory held by pending rows
+    private static final int PENDING_ROWS_PER_THREAD = 64;
+
+    private final Schema schema;
+    private final IssueHashIndex deltaIndex;
+    private final Function<Issue, Object[]> converter;
+    private final Consumer<Object[]> sink;
+    private final ExecutorService executor;
+    private final Deque<Future<ConvertedRecord>> pending = new ArrayDeque<>();
+    private final int maxPending;
+
+    /**
+     * @param schema      the schema
+     * @param task        the task
+     * @param pageBuilder the page builder of the task
+     * @param threads     the number of conversion threads, 1 converts on the calling thread
+     * @param deltaIndex  the index used to skip unchanged issues, may be null
+     */
+    public ParallelRecordWriter(final Schema schema,
+                                final PluginTask task,
+                                final PageBuilder pageBuilder,
+                                final int threads,
+                                final IssueHashIndex deltaIndex) {
+        this(schema,
+             threads,
+             deltaIndex,
+             newConverter(schema, task),
+             row -> BacklogHelper.addRow(row, schema, pageBuilder));
+    }
+
+    ParallelRecordWriter(final Schema schema,
+                         final int threads,
+                         final IssueHashIndex deltaIndex,
+                         final Function<Issue, Object[]> converter,
+                         final Consumer<Object[]> sink) {
+        this.schema = schema;
+        this.deltaIndex = deltaIndex;
+        this.converter = converter;
+        this.sink = sink;
+        this.executor = threads > 1 ? Executors.newFixedThreadPool(threads, newThreadFactory()) : null;
+        this.maxPending = threads * PENDING_ROWS_PER_THREAD;
+    }
+
+    public void add(final Issue issue) {
+        if (executor == null) {
+            if (deltaIndex == null || deltaIndex.update(issue, schema)) {
+                sink.accept(converter.apply(issue));
+            }
+            return;
+        }
+
+        pending.addLast(executor.submit(() -> convert(issue)));
+        if (pending.size() >= maxPending) {
+            addNextRow();
+        }
+    }
+
+    /**
+     * Waits for all submitted issues and adds their rows to the page builder.
+     */
+    public void flush() {
+        while (!pending.isEmpty()) {
+            addNextRow();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private ConvertedRecord convert(final Issue issue) {
+        final Object[] row = converter.apply(issue);
+
+        if (deltaIndex == null) {
+            return new ConvertedRecord(row, null, 0L);
+        }
+        return new ConvertedRecord(row, IssueHashIndex.getId(issue), IssueHashIndex.hash(issue, schema));
+    }
+
+    private void addNextRow() {
+        final ConvertedRecord record;
+        try {
+            record = pending.removeFirst().get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ConfigException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConfigException(e);
+        }
+
+        // The index is not thread-safe, it is only touched here on the task thread
+        if (deltaIndex == null || record.id == null || deltaIndex.update(record.id, record.hash)) {
+            sink.accept(record.row);
+        }
+    }
+
+    /*
+     * Timestamp parsers are built once per converting thread instead of once per value
+     * A parser is never shared between threads
+     * */
+    private static Function<Issue, Object[]> newConverter(final Schema schema, final PluginTask task) {
+        final ThreadLocal<TimestampParser[]> timestampParsers =
+                ThreadLocal.withInitial(() -> BacklogHelper.createTimestampParsers(schema, task));
+
+        return issue -> BacklogHelper.convertRecord(issue, schema, timestampParsers.get());
+    }
+
+    private static ThreadFactory newThreadFactory() {
+        final AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            final Thread thread = new Thread(runnable, "backlog-record-converter-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class ConvertedRecord {
+        private final Object[] row;
+        private final Long id;
+        private final long hash;
+
+        private ConvertedRecord(final Object[] row, final Long id, final long hash) {
+            this.row = row;
+            this.id = id;
+            this.hash = hash;
+        }
+    }
+}
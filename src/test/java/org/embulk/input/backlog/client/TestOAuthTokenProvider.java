@@ -0,0 +1,165 @@
+package org.embulk.input.backlog.client;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.embulk.input.backlog.AuthMethod;
+import org.embulk.input.backlog.BacklogInputPlugin.SpaceTask;
+import org.embulk.input.backlog.exception.BacklogException;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author thangnc
+ */
+public class TestOAuthTokenProvider {
+
+    @Test
+    public void sharesProviderOfSameCredentials() {
+        final OAuthTokenProvider provider = OAuthTokenProvider.of(space("https://shared.backlog.com", null, "r1"));
+
+        assertSame(provider, OAuthTokenProvider.of(space("https://shared.backlog.com", null, "r1")));
+        assertTrue(provider != OAuthTokenProvider.of(space("https://shared.backlog.com", null, "other")));
+        assertTrue(provider != OAuthTokenProvider.of(space("https://shared.backlog.jp", null, "r1")));
+    }
+
+    @Test
+    public void refreshesOnceForConcurrentTasks()
+            throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final OAuthTokenProvider provider = new OAuthTokenProvider(space("https://test.backlog.com", null, "r1"), (client, params) -> {
+            calls.incrementAndGet();
+            return token("a1", "r2", 3600);
+        });
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<String>> tokens = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 8; i++) {
+                tokens.add(executor.submit((Callable<String>) () -> {
+                    start.await();
+                    return provider.getAccessToken(null);
+                }));
+            }
+            start.countDown();
+            for (final Future<String> token : tokens) {
+                assertEquals("a1", token.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void refreshesWithinExpiryMargin()
+            throws BacklogException {
+        final Deque<String> responses = new ArrayDeque<>(Arrays.asList(token("a1", "r2", 30), token("a2", "r3", 3600)));
+        final AtomicInteger calls = new AtomicInteger();
+        final OAuthTokenProvider provider = new OAuthTokenProvider(space("https://test.backlog.com", null, "r1"), (client, params) -> {
+            calls.incrementAndGet();
+            return responses.removeFirst();
+        });
+
+        assertEquals("a1", provider.getAccessToken(null));
+        // Expires in 30 seconds, inside the refresh margin
+        assertEquals("a2", provider.getAccessToken(null));
+        assertEquals("a2", provider.getAccessToken(null));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void skipsRefreshOfAlreadyReplacedToken()
+            throws BacklogException {
+        final AtomicInteger calls = new AtomicInteger();
+        final OAuthTokenProvider provider = new OAuthTokenProvider(space("https://test.backlog.com", "a0", "r1"), (client, params) ->
+                token("a" + calls.incrementAndGet(), "r" + (calls.get() + 1), 3600));
+
+        // A configured access token is used until the API rejects it
+        assertEquals("a0", provider.getAccessToken(null));
+        assertEquals(0, calls.get());
+
+        assertEquals("a1", provider.refreshAfterUnauthorized(null, "a0"));
+        // Another task rejected with the old token gets the new one without a second refresh
+        assertEquals("a1", provider.refreshAfterUnauthorized(null, "a0"));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void sendsRotatedRefreshToken()
+            throws BacklogException {
+        final Deque<String> responses = new ArrayDeque<>(Arrays.asList(token("a1", "r2", 3600), token("a2", "r3", 3600)));
+        final List<String> sent = new ArrayList<>();
+        final OAuthTokenProvider provider = new OAuthTokenProvider(space("https://test.backlog.com", null, "r1"), (client, params) -> {
+            sent.add(getParam(params, "refresh_token"));
+            return responses.removeFirst();
+        });
+
+        final String accessToken = provider.getAccessToken(null);
+        assertEquals("r2", provider.getRefreshToken());
+        provider.refreshAfterUnauthorized(null, accessToken);
+
+        assertEquals(Arrays.asList("r1", "r2"), sent);
+        assertEquals("r3", provider.getRefreshToken());
+    }
+
+    @Test
+    public void failsWhenRejectedWithoutRefreshToken() {
+        final OAuthTokenProvider provider = new OAuthTokenProvider(space("https://test.backlog.com", "a0", null), (client, params) -> {
+            throw new IllegalStateException("must not refresh");
+        });
+
+        try {
+            provider.refreshAfterUnauthorized(null, "a0");
+            fail("expected BacklogException");
+        } catch (final BacklogException e) {
+            assertEquals(HttpStatus.SC_UNAUTHORIZED, e.getStatusCode());
+        }
+    }
+
+    private static String token(final String accessToken, final String refreshToken, final long expiresIn) {
+        return String.format("{\"access_token\": \"%s\", \"refresh_token\": \"%s\", \"expires_in\": %d}",
+                             accessToken, refreshToken, expiresIn);
+    }
+
+    private static String getParam(final List<NameValuePair> params, final String name) {
+        return params.stream().filter(param -> param.getName().equals(name)).findFirst().map(NameValuePair::getValue).orElse(null);
+    }
+
+    private static SpaceTask space(final String uri, final String accessToken, final String refreshToken) {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("getAuthMethod", AuthMethod.OAUTH);
+        values.put("getUri", uri);
+        values.put("getAccessToken", Optional.ofNullable(accessToken));
+        values.put("getRefreshToken", Optional.ofNullable(refreshToken));
+        values.put("getClientId", Optional.of("client"));
+        values.put("getClientSecret", Optional.of("secret"));
+        values.put("getProjectIds", Collections.emptyList());
+
+        return (SpaceTask) Proxy.newProxyInstance(SpaceTask.class.getClassLoader(),
+                                                  new Class<?>[] {SpaceTask.class},
+                                                  (proxy, method, args) -> values.get(method.getName()));
+    }
+}
@@ -0,0 +1,122 @@
+package org.embulk.input.backlog.client;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.embulk.config.ConfigException;
+import org.embulk.input.backlog.Issue;
+import org.embulk.input.backlog.helpers.BacklogHelper;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author thangnc
+ */
+public class TestReferenceDataCache {
+
+    private static final String CUSTOM_FIELDS = "["
+            + "{\"id\": 100, \"name\": \"Priority\", \"items\": [{\"id\": 10, \"name\": \"High\"}, {\"id\": 11, \"name\": \"Low\"}]},"
+            + "{\"id\": 101, \"name\": \"Tags\", \"items\": [{\"id\": 20, \"name\": \"Backend\"}, {\"id\": 21, \"name\": \"Frontend\"}]},"
+            + "{\"id\": 102, \"name\": \"Note\"}"
+            + "]";
+
+    private static final String ISSUE = "{\"id\": 1, \"projectId\": 7, \"customFields\": ["
+            + "{\"id\": 100, \"name\": \"Priority\", \"value\": {\"id\": 11, \"name\": \"Low\"}},"
+            + "{\"id\": 101, \"name\": \"Tags\", \"value\": [{\"id\": 20, \"name\": \"Backend\"}, {\"id\": 21, \"name\": \"Frontend\"}]},"
+            + "{\"id\": 102, \"name\": \"Note\", \"value\": \"free text\"}"
+            + "]}";
+
+    @Test
+    public void resolvesCustomFieldItemIdToName() {
+        final List<String> fetched = new ArrayList<>();
+        final Schema schema = new Schema(Collections.singletonList(new Column(0, "customFields.value.id->name", Types.STRING)));
+        final Issue issue = BacklogHelper.toIssue(new JsonParser().parse(ISSUE).getAsJsonObject());
+
+        try (ReferenceDataCache cache = new ReferenceDataCache(fetcher(fetched), schema, Collections.emptyList())) {
+            cache.resolve(issue);
+        }
+
+        assertEquals(Collections.singletonList("/api/v2/projects/7/customFields"), fetched);
+        assertEquals(array("Low", "Backend", "Frontend", null), issue.getValue("customFields.value.id->name"));
+    }
+
+    @Test
+    public void resolvesCustomFieldIdToName() {
+        final Schema schema = new Schema(Collections.singletonList(new Column(0, "customFields.id->name", Types.STRING)));
+        final Issue issue = BacklogHelper.toIssue(new JsonParser().parse(ISSUE).getAsJsonObject());
+
+        try (ReferenceDataCache cache = new ReferenceDataCache(fetcher(new ArrayList<>()), schema, Collections.emptyList())) {
+            cache.resolve(issue);
+        }
+
+        assertEquals(array("Priority", "Tags", "Note"), issue.getValue("customFields.id->name"));
+    }
+
+    @Test
+    public void prefetchesConfiguredProjectsUpFront()
+            throws InterruptedException {
+        final Schema schema = new Schema(Collections.singletonList(new Column(0, "status.id->name", Types.STRING)));
+        final CountDownLatch fetched = new CountDownLatch(2);
+        final Function<String, JsonElement> fetcher = path -> {
+            fetched.countDown();
+            return new JsonArray();
+        };
+
+        try (ReferenceDataCache cache = new ReferenceDataCache(fetcher, schema, Arrays.asList(7L, 8L))) {
+            // Both projects are fetched before any of their issues is resolved
+            assertTrue(fetched.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void rejectsUnknownReference() {
+        final Schema schema = new Schema(Collections.singletonList(new Column(0, "foo->name", Types.STRING)));
+
+        try {
+            ReferenceDataCache.validate(schema);
+            fail("expected ConfigException");
+        } catch (final ConfigException e) {
+            assertTrue(e.getMessage().contains("foo->name"));
+        }
+    }
+
+    @Test
+    public void doesNotGuessCustomFields() {
+        final Issue issue = BacklogHelper.toIssue(new JsonParser().parse(ISSUE).getAsJsonObject());
+
+        assertFalse(issue.getFlatten().keySet().stream().anyMatch(key -> key.startsWith("customFields")));
+    }
+
+    private static Function<String, JsonElement> fetcher(final List<String> fetched) {
+        return path -> {
+            synchronized (fetched) {
+                fetched.add(path);
+            }
+            if (!path.equals("/api/v2/projects/7/customFields")) {
+                throw new IllegalArgumentException(path);
+            }
+            return new JsonParser().parse(CUSTOM_FIELDS);
+        };
+    }
+
+    private static JsonArray array(final String... values) {
+        final JsonArray array = new JsonArray();
+        Arrays.stream(values).forEach(array::add);
+        return array;
+    }
+}
@@ -0,0 +1,106 @@
+package org.embulk.input.backlog.client;
+
+import org.embulk.config.ConfigException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author thangnc
+ */
+public class TestReplayClient {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsJsonArray()
+            throws IOException {
+        final Path dir = write("issues-0.json", "[{\"id\": 1}, {\"id\": 2}, {\"id\": 3}]");
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), readIds(dir, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readsSingleObject()
+            throws IOException {
+        final Path dir = write("issue.json", "{\"id\": 1, \"summary\": \"first\"}");
+
+        assertEquals(Arrays.asList(1L), readIds(dir, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void readsNdjsonSkippingBlankLines()
+            throws IOException {
+        final Path dir = write("issues.ndjson", "{\"id\": 1}\n\n   \n{\"id\": 2}\n");
+
+        assertEquals(Arrays.asList(1L, 2L), readIds(dir, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void stopsAtMaxResultsAcrossFiles()
+            throws IOException {
+        final Path dir = write("issues-0.json", "[{\"id\": 1}, {\"id\": 2}]");
+        write("issues-1.jsonl", "{\"id\": 3}\n{\"id\": 4}\n");
+        write("issues-2.json", "[{\"id\": 5}]");
+
+        assertEquals(Arrays.asList(1L, 2L, 3L), readIds(dir, 3));
+    }
+
+    @Test
+    public void blamesMalformedFile()
+            throws IOException {
+        final Path dir = write("issues.ndjson", "{\"id\": 1}\n[1, 2]\n");
+
+        try {
+            readIds(dir, Long.MAX_VALUE);
+            fail("expected ConfigException");
+        } catch (final ConfigException e) {
+            assertTrue(e.getMessage().contains("issues.ndjson"));
+        }
+    }
+
+    @Test
+    public void passesOnConsumerFailure()
+            throws IOException {
+        final Path dir = write("issues.json", "[{\"id\": 1}]");
+        final RuntimeException failure = new IllegalStateException("conversion failed");
+
+        try {
+            new ReplayClient().readIssues(dir, Long.MAX_VALUE, issue -> {
+                throw failure;
+            });
+            fail("expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    private Path write(final String fileName, final String content)
+            throws IOException {
+        final Path dir = temporaryFolder.getRoot().toPath();
+        Files.write(dir.resolve(fileName), content.getBytes(StandardCharsets.UTF_8));
+
+        return dir;
+    }
+
+    private static List<Long> readIds(final Path dir, final long maxResults) {
+        final List<Long> ids = new ArrayList<>();
+        new ReplayClient().readIssues(dir, maxResults, issue -> ids.add(issue.getValue("id").getAsLong()));
+
+        return ids;
+    }
+}
@@ -0,0 +1,74 @@
+package org.embulk.input.backlog.client;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author thangnc
+ */
+public class TestResponseCache {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void toKeyDropsApiKey() {
+        assertEquals(ResponseCache.toKey("https://test.backlog.com/api/v2/issues?count=20"),
+                     ResponseCache.toKey("https://test.backlog.com/api/v2/issues?count=20&apiKey=secret"));
+    }
+
+    @Test
+    public void toKeySortsParameters() {
+        assertEquals(ResponseCache.toKey("https://test.backlog.com/api/v2/issues?offset=0&count=20"),
+                     ResponseCache.toKey("https://test.backlog.com/api/v2/issues?count=20&offset=0"));
+    }
+
+    @Test
+    public void toKeyLowerCasesHost() {
+        assertEquals(ResponseCache.toKey("https://Test.Backlog.com/api/v2/issues"),
+                     ResponseCache.toKey("https://test.backlog.com/api/v2/issues"));
+    }
+
+    @Test
+    public void toKeyKeepsOtherParameters() {
+        assertNotEquals(ResponseCache.toKey("https://test.backlog.com/api/v2/issues?offset=0"),
+                        ResponseCache.toKey("https://test.backlog.com/api/v2/issues?offset=20"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedEntry()
+            throws IOException {
+        final ResponseCache cache = ResponseCache.open(temporaryFolder.newFolder().getPath(), 3600, 10);
+
+        cache.put("a", "aaaa", "\"a\"", null);
+        cache.put("b", "bbbb", "\"b\"", null);
+        assertTrue(cache.get("a").isPresent());
+        cache.put("c", "cccc", "\"c\"", null);
+
+        assertFalse(cache.get("b").isPresent());
+        assertEquals("aaaa", cache.get("a").get().getBody());
+        assertEquals("cccc", cache.get("c").get().getBody());
+    }
+
+    @Test
+    public void appliesLimitsOfLatestOpen()
+            throws IOException {
+        final String directory = temporaryFolder.newFolder().getPath();
+        final ResponseCache cache = ResponseCache.open(directory, 3600, 100);
+
+        cache.put("a", "aaaa", "\"a\"", null);
+        cache.put("b", "bbbb", "\"b\"", null);
+        ResponseCache.open(directory, 0, 4);
+
+        assertFalse(cache.get("a").isPresent());
+        assertFalse(cache.get("b").get().isFresh());
+    }
+}
@@ -0,0 +1,42 @@
+package org.embulk.input.backlog.helpers;
+
+import com.google.gson.JsonObject;
+import org.embulk.input.backlog.Issue;
+import org.embulk.spi.Column;
+import org.embulk.spi.Schema;
+import org.embulk.spi.type.Types;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Issues and schema shared by the tests of the helpers.
+ *
+ * @author thangnc
+ */
+final class IssueFixtures {
+
+    static final Schema SCHEMA = new Schema(Arrays.asList(new Column(0, "id", Types.LONG),
+                                                          new Column(1, "summary", Types.STRING)));
+
+    private IssueFixtures() {
+    }
+
+    static Issue issue(final long id, final String summary) {
+        return issue(id, summary, "2020-01-01T00:00:00Z");
+    }
+
+    static Issue issue(final long id, final String summary, final String updated) {
+        final JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("summary", summary);
+        json.addProperty("updated", updated);
+
+        return new Issue(json);
+    }
+
+    static String indexPath(final TemporaryFolder temporaryFolder) {
+        return new File(temporaryFolder.getRoot(), "delta.index").getPath();
+    }
+}
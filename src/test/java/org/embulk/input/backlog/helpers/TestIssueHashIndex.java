@@ -0,0 +1,104 @@
+package org.embulk.input.backlog.helpers;
+
+import com.google.gson.JsonObject;
+import org.embulk.input.backlog.Issue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.embulk.input.backlog.helpers.IssueFixtures.SCHEMA;
+import static org.embulk.input.backlog.helpers.IssueFixtures.indexPath;
+import static org.embulk.input.backlog.helpers.IssueFixtures.issue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author thangnc
+ */
+public class TestIssueHashIndex {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void keepsEntriesAcrossRehash() {
+        final IssueHashIndex index = IssueHashIndex.load(indexPath(temporaryFolder));
+
+        for (int id = 1; id <= 1000; id++) {
+            assertTrue(index.update(issue(id, "summary " + id), SCHEMA));
+        }
+        for (int id = 1; id <= 1000; id++) {
+            assertFalse(index.update(issue(id, "summary " + id), SCHEMA));
+        }
+        assertTrue(index.update(issue(500, "changed"), SCHEMA));
+    }
+
+    @Test
+    public void loadsCommittedIndex() {
+        final String path = indexPath(temporaryFolder);
+        final IssueHashIndex index = IssueHashIndex.load(path);
+        index.update(issue(1, "first"), SCHEMA);
+        index.update(issue(2, "second"), SCHEMA);
+        index.save();
+
+        // Not committed yet, the next run still starts from an empty index
+        assertTrue(IssueHashIndex.load(path).update(issue(1, "first"), SCHEMA));
+
+        IssueHashIndex.commit(path);
+        final IssueHashIndex loaded = IssueHashIndex.load(path);
+        assertFalse(loaded.update(issue(1, "first"), SCHEMA));
+        assertFalse(loaded.update(issue(2, "second"), SCHEMA));
+        assertTrue(loaded.update(issue(2, "changed"), SCHEMA));
+        assertTrue(loaded.update(issue(3, "third"), SCHEMA));
+    }
+
+    @Test
+    public void dropsIssuesNotSeenByRun() {
+        final String path = indexPath(temporaryFolder);
+        final IssueHashIndex first = IssueHashIndex.load(path);
+        first.update(issue(1, "first"), SCHEMA);
+        first.update(issue(2, "deleted later"), SCHEMA);
+        first.save();
+        IssueHashIndex.commit(path);
+
+        final IssueHashIndex second = IssueHashIndex.load(path);
+        second.update(issue(1, "first"), SCHEMA);
+        second.save();
+        IssueHashIndex.commit(path);
+
+        final IssueHashIndex third = IssueHashIndex.load(path);
+        assertFalse(third.update(issue(1, "first"), SCHEMA));
+        assertTrue(third.update(issue(2, "deleted later"), SCHEMA));
+    }
+
+    @Test
+    public void skipsUnchangedIssue() {
+        final IssueHashIndex index = IssueHashIndex.load(indexPath(temporaryFolder));
+
+        assertTrue(index.update(issue(1, "summary"), SCHEMA));
+        assertFalse(index.update(issue(1, "summary"), SCHEMA));
+    }
+
+    @Test
+    public void ignoresChangeOfNotConfiguredField() {
+        final IssueHashIndex index = IssueHashIndex.load(indexPath(temporaryFolder));
+
+        assertTrue(index.update(issue(1, "summary", "2020-01-01T00:00:00Z"), SCHEMA));
+        assertFalse(index.update(issue(1, "summary", "2020-02-01T00:00:00Z"), SCHEMA));
+    }
+
+    @Test
+    public void alwaysEmitsIssueWithoutNumericId() {
+        final IssueHashIndex index = IssueHashIndex.load(indexPath(temporaryFolder));
+        final JsonObject withoutId = new JsonObject();
+        withoutId.addProperty("summary", "summary");
+        final JsonObject textId = new JsonObject();
+        textId.addProperty("id", "BLG-1");
+        textId.addProperty("summary", "summary");
+
+        assertTrue(index.update(new Issue(withoutId), SCHEMA));
+        assertTrue(index.update(new Issue(withoutId), SCHEMA));
+        assertTrue(index.update(new Issue(textId), SCHEMA));
+        assertTrue(index.update(new Issue(textId), SCHEMA));
+    }
+}
@@ -0,0 +1,79 @@
+package org.embulk.input.backlog.helpers;
+
+import org.embulk.input.backlog.Issue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import static org.embulk.input.backlog.helpers.IssueFixtures.SCHEMA;
+import static org.embulk.input.backlog.helpers.IssueFixtures.indexPath;
+import static org.embulk.input.backlog.helpers.IssueFixtures.issue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author thangnc
+ */
+public class TestParallelRecordWriter {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void addsRowsInSubmissionOrder() {
+        final List<Long> ids = new ArrayList<>();
+        final List<Long> expected = new ArrayList<>();
+
+        try (ParallelRecordWriter writer = new ParallelRecordWriter(SCHEMA, 4, null, slowConverter(), row -> ids.add((Long) row[0]))) {
+            for (long id = 1; id <= 1000; id++) {
+                writer.add(issue(id, "summary " + id));
+                expected.add(id);
+            }
+            writer.flush();
+        }
+
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void skipsUnchangedIssuesInOrder() {
+        final IssueHashIndex index = IssueHashIndex.load(indexPath(temporaryFolder));
+        final List<Long> firstRun = new ArrayList<>();
+        final List<Long> secondRun = new ArrayList<>();
+
+        try (ParallelRecordWriter writer = new ParallelRecordWriter(SCHEMA, 4, index, slowConverter(), row -> firstRun.add((Long) row[0]))) {
+            for (long id = 1; id <= 100; id++) {
+                writer.add(issue(id, "summary"));
+            }
+            writer.flush();
+        }
+        try (ParallelRecordWriter writer = new ParallelRecordWriter(SCHEMA, 4, index, slowConverter(), row -> secondRun.add((Long) row[0]))) {
+            for (long id = 1; id <= 100; id++) {
+                writer.add(issue(id, id % 10 == 0 ? "changed" : "summary"));
+            }
+            writer.flush();
+        }
+
+        assertEquals(100, firstRun.size());
+        assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L, 60L, 70L, 80L, 90L, 100L), secondRun);
+    }
+
+    /*
+     * Conversions finish in random order, the writer must still hand rows over in submission order
+     * */
+    private static Function<Issue, Object[]> slowConverter() {
+        return issue -> {
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Object[] {issue.getValue("id").getAsLong(), issue.getValue("summary").getAsString()};
+        };
+    }
+}